@@ -0,0 +1,373 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package weka.attributeSelection;
+
+import weka.core.*;
+
+import java.util.*;
+
+/**
+ * Measures the quality of the subsets found by SimulatedAnnealingStepwise per
+ * subset evaluation, on synthetic data with a known answer.
+ * <p/>
+ * For every width a dataset is generated with relevant attributes that
+ * determine the binary class, redundant attributes that are noisy copies of
+ * the relevant ones and pure noise attributes. The search is run with every
+ * evaluation budget, initialization strategy and seed, and for each run the
+ * final merit, the merit of the planted relevant subset, the smallest budget
+ * from which on the search returns at least that merit, the recall of the relevant
+ * attributes and the merit and recall of the subset the search would have
+ * returned had its budget ended after every tenth of it are printed as CSV,
+ * followed by the means over the seeds of the results and of the curves.
+ * <p/>
+ * Valid options are:
+ * <pre>
+ * -W &lt;widths&gt;
+ *  Comma separated numbers of attributes (default 20,50,100)
+ * -S &lt;seeds&gt;
+ *  Number of seeds per width (default 5)
+ * -B &lt;budgets&gt;
+ *  Comma separated evaluation budgets (default 100,500,2000)
+ * -I &lt;strategies&gt;
+ *  Comma separated initialization strategies (default random,ranker,forward)
+ * -N &lt;instances&gt;
+ *  Number of instances per dataset (default 500)
+ * -E &lt;evaluator specification&gt;
+ *  Subset evaluator (default weka.attributeSelection.CfsSubsetEval)
+ * -- &lt;search options&gt;
+ *  Options passed to SimulatedAnnealingStepwise
+ * </pre>
+ *
+ * @version $Revision: 1 $
+ */
+public class SimulatedAnnealingBenchmark {
+
+    /**
+     * the number of points printed for the merit and recall versus evaluations curves of every run
+     */
+    protected static final int CURVE_POINTS = 10;
+
+    /**
+     * Records after every evaluation the merit and the recall of the subset the search
+     * would return if its budget ended there.
+     */
+    protected static class ProgressSearch extends SimulatedAnnealingStepwise {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the merit the search would return after each evaluation
+         */
+        protected double[] m_returned = new double[1024];
+
+        /**
+         * the recall of the relevant attributes in the subset the search would return after each evaluation
+         */
+        protected double[] m_recall = new double[1024];
+
+        /**
+         * the number of evaluations recorded
+         */
+        protected int m_recorded;
+
+        /**
+         * the number of relevant attributes, which are the first ones
+         */
+        protected int m_relevant;
+
+        /**
+         * the merit of the empty subset, which the search returns before it has evaluated any, NaN until needed
+         */
+        protected double m_emptyMerit = Double.NaN;
+
+        /**
+         * @param relevant the number of relevant attributes, which are the first ones
+         */
+        public ProgressSearch(int relevant) {
+            m_relevant = relevant;
+        }
+
+        @Override
+        protected void progress(int evaluations, double merit, BitSet group) {
+            if (group == null) {
+                // the ranking has not left an evaluation for any subset yet
+                group = new BitSet();
+                if (Double.isNaN(m_emptyMerit)) {
+                    try {
+                        m_emptyMerit = ((SubsetEvaluator) m_ASEval).evaluateSubset(group);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                merit = m_emptyMerit;
+            }
+            if (evaluations > m_returned.length) {
+                m_returned = Arrays.copyOf(m_returned, Math.max(evaluations, m_returned.length * 2));
+                m_recall = Arrays.copyOf(m_recall, m_returned.length);
+            }
+            m_returned[evaluations - 1] = merit;
+            m_recall[evaluations - 1] = recall(group, m_relevant);
+            m_recorded = evaluations;
+        }
+
+        /**
+         * The returned merit is not monotone in the budget, since an iteration can move
+         * away from a good subset before it ends, so only a budget from which on every
+         * budget up to that of the run returns the merit counts.
+         *
+         * @param target the merit to reach
+         * @return the smallest budget with which the search, and with any larger budget up
+         * to that of the run, returns at least that merit, -1 if the run ended below it
+         */
+        public int evaluationsTo(double target) {
+            int e = m_recorded;
+            while (e > 0 && m_returned[e - 1] >= target) {
+                e--;
+            }
+            return e == m_recorded ? -1 : e + 1;
+        }
+
+        /**
+         *
+         * @param evaluations the number of evaluations done
+         * @return the merit the search would have returned with that budget
+         */
+        public double returnedAfter(int evaluations) {
+            return m_returned[Math.min(evaluations, m_recorded) - 1];
+        }
+
+        /**
+         *
+         * @param evaluations the number of evaluations done
+         * @return the recall of the subset the search would have returned with that budget
+         */
+        public double recallAfter(int evaluations) {
+            return m_recall[Math.min(evaluations, m_recorded) - 1];
+        }
+    }
+
+    /**
+     *
+     * @param group a subset
+     * @param relevant the number of relevant attributes, which are the first ones
+     * @return the share of the relevant attributes in the subset
+     */
+    public static double recall(BitSet group, int relevant) {
+        return (double) group.get(0, relevant).cardinality() / relevant;
+    }
+
+    /**
+     * Generates a dataset with a binary class decided by the relevant attributes.
+     * The first width/10 (at least 2) attributes are relevant, the next as many are
+     * noisy copies of them and the rest are independent noise.
+     *
+     * @param width the number of attributes, without the class
+     * @param numInstances the number of instances
+     * @param random the random generator
+     * @return the dataset, with the class as the last attribute
+     */
+    public static Instances generate(int width, int numInstances, Random random) {
+        int relevant = numRelevant(width);
+        int redundant = Math.min(relevant, width - relevant);
+
+        ArrayList<Attribute> atts = new ArrayList<Attribute>(width + 1);
+        for (int a = 0; a < width; a++) {
+            String prefix = a < relevant ? "relevant" : a < relevant + redundant ? "redundant" : "noise";
+            atts.add(new Attribute(prefix + "_" + a));
+        }
+        atts.add(new Attribute("class", Arrays.asList("negative", "positive")));
+        Instances data = new Instances("synthetic_" + width, atts, numInstances);
+        data.setClassIndex(width);
+
+        for (int n = 0; n < numInstances; n++) {
+            double[] values = new double[width + 1];
+            double signal = 0;
+            for (int a = 0; a < width; a++) {
+                if (a < relevant) {
+                    values[a] = random.nextGaussian();
+                    signal += values[a];
+                } else if (a < relevant + redundant) {
+                    values[a] = values[a - relevant] + 0.1 * random.nextGaussian();
+                } else {
+                    values[a] = random.nextGaussian();
+                }
+            }
+            values[width] = signal + 0.5 * random.nextGaussian() > 0 ? 1 : 0;
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    /**
+     *
+     * @param width the number of attributes, without the class
+     * @return the number of relevant attributes planted in a dataset of that width
+     */
+    public static int numRelevant(int width) {
+        return Math.min(width, Math.max(2, width / 10));
+    }
+
+    /**
+     *
+     * @param budget the evaluation budget of the run
+     * @param point the index of the curve point
+     * @return the evaluations at that point of the curves
+     */
+    protected static int curvePoint(int budget, int point) {
+        return Math.max(1, budget * (point + 1) / CURVE_POINTS);
+    }
+
+    /**
+     * Parses a comma separated list of integers.
+     *
+     * @param list the list
+     * @return the integers
+     */
+    protected static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the options, see the class description
+     * @throws Exception if a search fails
+     */
+    public static void main(String[] args) throws Exception {
+        String[] searchOptions = Utils.partitionOptions(args);
+
+        String optionString = Utils.getOption('W', args);
+        int[] widths = parseList(optionString.length() != 0 ? optionString : "20,50,100");
+        optionString = Utils.getOption('S', args);
+        int seeds = optionString.length() != 0 ? Integer.parseInt(optionString) : 5;
+        optionString = Utils.getOption('B', args);
+        int[] budgets = parseList(optionString.length() != 0 ? optionString : "100,500,2000");
+        optionString = Utils.getOption('I', args);
+        String[] strategies = (optionString.length() != 0 ? optionString : "random,ranker,forward").split(",");
+        optionString = Utils.getOption('N', args);
+        int numInstances = optionString.length() != 0 ? Integer.parseInt(optionString) : 500;
+        optionString = Utils.getOption('E', args);
+        String[] evalSpec = Utils.splitOptions(optionString.length() != 0 ? optionString
+                : CfsSubsetEval.class.getName());
+        String evalName = evalSpec[0];
+        evalSpec[0] = "";
+        Utils.checkForRemainingOptions(args);
+
+        double[][][] meritSum = new double[widths.length][budgets.length][strategies.length];
+        double[][][] targetSum = new double[widths.length][budgets.length][strategies.length];
+        double[][][] recallSum = new double[widths.length][budgets.length][strategies.length];
+        double[][][] evaluationsSum = new double[widths.length][budgets.length][strategies.length];
+        double[][][] rankingSum = new double[widths.length][budgets.length][strategies.length];
+        double[][][] toTargetSum = new double[widths.length][budgets.length][strategies.length];
+        int[][][] reached = new int[widths.length][budgets.length][strategies.length];
+        double[][][][] curveMeritSum = new double[widths.length][budgets.length][strategies.length][CURVE_POINTS];
+        double[][][][] curveRecallSum = new double[widths.length][budgets.length][strategies.length][CURVE_POINTS];
+
+        System.out.println("result,width,seed,budget,strategy,evaluations,ranking_evaluations,merit,target_merit,"
+                + "evaluations_to_target,selected,recall");
+        System.out.println("curve,width,seed,budget,strategy,evaluations,returned_merit,returned_recall");
+        for (int w = 0; w < widths.length; w++) {
+            int relevant = numRelevant(widths[w]);
+            for (int seed = 1; seed <= seeds; seed++) {
+                Instances data = generate(widths[w], numInstances, new Random(seed));
+                ASEvaluation eval = ASEvaluation.forName(evalName, evalSpec.clone());
+                eval.buildEvaluator(data);
+
+                BitSet planted = new BitSet(widths[w]);
+                planted.set(0, relevant);
+                double target = ((SubsetEvaluator) eval).evaluateSubset(planted);
+
+                for (int b = 0; b < budgets.length; b++) {
+                    for (int g = 0; g < strategies.length; g++) {
+                        ProgressSearch search = new ProgressSearch(relevant);
+                        search.setOptions(searchOptions.clone());
+                        search.setAnnealing_random_seed(seed);
+                        search.setAnnealing_max_evaluations(budgets[b]);
+                        search.setInitialization(new SelectedTag(strategies[g].trim(),
+                                SimulatedAnnealingStepwise.TAGS_INITIALIZATION));
+
+                        int[] selected = search.search(eval, data);
+                        BitSet group = new BitSet(widths[w]);
+                        for (int a : selected) {
+                            group.set(a);
+                        }
+                        double recall = recall(group, relevant);
+                        double merit = search.returnedAfter(search.getM_evaluations());
+                        int toTarget = search.evaluationsTo(target);
+
+                        System.out.println("result," + widths[w] + "," + seed + "," + budgets[b] + "," + strategies[g] + ","
+                                + search.getM_evaluations() + "," + search.getM_rankingEvaluations() + "," + merit + ","
+                                + target + "," + toTarget + "," + selected.length + "," + recall);
+                        // a search that stopped before a point returns its final subset there
+                        for (int p = 0; p < CURVE_POINTS; p++) {
+                            int evaluations = curvePoint(budgets[b], p);
+                            System.out.println("curve," + widths[w] + "," + seed + "," + budgets[b] + "," + strategies[g] + ","
+                                    + evaluations + "," + search.returnedAfter(evaluations) + ","
+                                    + search.recallAfter(evaluations));
+                            curveMeritSum[w][b][g][p] += search.returnedAfter(evaluations);
+                            curveRecallSum[w][b][g][p] += search.recallAfter(evaluations);
+                        }
+
+                        meritSum[w][b][g] += merit;
+                        targetSum[w][b][g] += target;
+                        recallSum[w][b][g] += recall;
+                        evaluationsSum[w][b][g] += search.getM_evaluations();
+                        rankingSum[w][b][g] += search.getM_rankingEvaluations();
+                        if (toTarget > 0) {
+                            toTargetSum[w][b][g] += toTarget;
+                            reached[w][b][g]++;
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println("width,budget,strategy,mean_evaluations,mean_ranking_evaluations,mean_merit,mean_target_merit,"
+                + "reached_target,mean_evaluations_to_target,mean_recall");
+        for (int w = 0; w < widths.length; w++) {
+            for (int b = 0; b < budgets.length; b++) {
+                for (int g = 0; g < strategies.length; g++) {
+                    System.out.println(widths[w] + "," + budgets[b] + "," + strategies[g] + ","
+                            + evaluationsSum[w][b][g] / seeds + "," + rankingSum[w][b][g] / seeds + "," + meritSum[w][b][g] / seeds + ","
+                            + targetSum[w][b][g] / seeds + "," + reached[w][b][g] + "/" + seeds + ","
+                            + (reached[w][b][g] == 0 ? -1 : toTargetSum[w][b][g] / reached[w][b][g]) + ","
+                            + recallSum[w][b][g] / seeds);
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println("width,budget,strategy,evaluations,mean_returned_merit,mean_returned_recall");
+        for (int w = 0; w < widths.length; w++) {
+            for (int b = 0; b < budgets.length; b++) {
+                for (int g = 0; g < strategies.length; g++) {
+                    for (int p = 0; p < CURVE_POINTS; p++) {
+                        System.out.println(widths[w] + "," + budgets[b] + "," + strategies[g] + ","
+                                + curvePoint(budgets[b], p) + "," + curveMeritSum[w][b][g][p] / seeds + ","
+                                + curveRecallSum[w][b][g][p] / seeds);
+                    }
+                }
+            }
+        }
+    }
+}
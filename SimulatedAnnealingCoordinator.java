@@ -0,0 +1,460 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package weka.attributeSelection;
+
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the iterations of a SimulatedAnnealingStepwise search in local worker
+ * JVMs, so that every evaluator copy gets a heap of its own.
+ * <p/>
+ * Every worker slot launches a {@link SimulatedAnnealingWorker} and sends it
+ * the data once, then hands it the next pending iteration whenever it returns
+ * a result. When a worker dies or its connection breaks, the iteration it was
+ * running goes back to the pending ones and the slot launches a new worker, up
+ * to {@link #MAX_LAUNCHES} times. A worker that does not return an iteration
+ * within the worker timeout of the search is killed and handled the same way,
+ * since a worker can hang without exiting, eg. in garbage collection at its
+ * heap limit. If no worker ever connects the search fails; otherwise
+ * iterations no worker could finish are run in this process. Since every
+ * iteration seeds its own random generator, the results are the same as
+ * those of a single process search.
+ *
+ * @version $Revision: 1 $
+ */
+public class SimulatedAnnealingCoordinator {
+
+    /**
+     * the number of times a worker slot launches a worker before giving up
+     */
+    public static final int MAX_LAUNCHES = 3;
+
+    /**
+     * the milliseconds a launched worker has to connect back
+     */
+    public static final int CONNECT_TIMEOUT = 60000;
+
+    /**
+     * the milliseconds between checks that a worker which has not connected yet is still running
+     */
+    public static final int CONNECT_POLL = 200;
+
+    /**
+     * the milliseconds a connection has to send the token
+     */
+    public static final int HANDSHAKE_TIMEOUT = 5000;
+
+    /**
+     * the search the iterations belong to, already prepared
+     */
+    protected SimulatedAnnealingStepwise m_search;
+
+    /**
+     * the training instances
+     */
+    protected Instances m_data;
+
+    /**
+     * the results by iteration
+     */
+    protected SimulatedAnnealingStepwise.IterationResult[] m_results;
+
+    /**
+     * the iterations no worker is running or has finished
+     */
+    protected LinkedList<Integer> m_pending = new LinkedList<Integer>();
+
+    /**
+     * the number of iterations without a result
+     */
+    protected int m_remaining;
+
+    /**
+     * the first error an iteration failed with in a worker
+     */
+    protected Exception m_error;
+
+    /**
+     * true once a worker has connected
+     */
+    protected boolean m_connected;
+
+    /**
+     * the token workers identify with, so no other local process can pose as one.
+     * It is passed on the standard input of the worker, where other users can't read it.
+     */
+    protected String m_token;
+
+    /**
+     * @param search the search, after its start set and initialization are computed
+     * @param data the training instances
+     */
+    public SimulatedAnnealingCoordinator(SimulatedAnnealingStepwise search, Instances data) {
+        m_search = search;
+        m_data = data;
+        m_token = Long.toHexString(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Runs all iterations of the search.
+     *
+     * @return the results, in the order of the iterations
+     * @throws Exception if an iteration fails
+     */
+    public SimulatedAnnealingStepwise.IterationResult[] run() throws Exception {
+        int iterations = m_search.getAnnealing_iterations();
+        m_results = new SimulatedAnnealingStepwise.IterationResult[iterations];
+        m_remaining = iterations;
+        for (int i = 0; i < iterations; i++) {
+            m_pending.add(i);
+        }
+
+        List<Thread> slots = new ArrayList<Thread>();
+        for (int s = 0; s < Math.min(m_search.getNumWorkers(), iterations); s++) {
+            final int slot = s;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSlot(slot);
+                }
+            }, "SimulatedAnnealingCoordinator-" + slot);
+            thread.setDaemon(true);
+            thread.start();
+            slots.add(thread);
+        }
+        for (Thread thread : slots) {
+            thread.join();
+        }
+        if (m_error != null) {
+            throw m_error;
+        }
+        if (!m_pending.isEmpty() && !m_connected) {
+            throw new Exception("No simulated annealing worker process could be started, see the errors above!");
+        }
+
+        // every worker slot gave up, run what is left here
+        if (!m_pending.isEmpty()) {
+            System.err.println("All simulated annealing workers failed, running the remaining "
+                    + m_pending.size() + " iterations in this process");
+        }
+        StepTraceWriter trace = m_pending.isEmpty() || m_search.getTraceFile().equals("") ? null
+                : new StepTraceWriter(m_search.getTraceFile() + ".coordinator");
+        try {
+            Integer iteration;
+            while ((iteration = m_pending.poll()) != null) {
+                m_results[iteration] = m_search.runIteration(iteration, (SubsetEvaluator) m_search.m_ASEval, trace);
+            }
+        } finally {
+            if (trace != null) {
+                trace.close();
+            }
+        }
+        return m_results;
+    }
+
+    /**
+     * Launches workers for a slot and feeds them iterations until none are left
+     * or the slot has launched MAX_LAUNCHES workers.
+     *
+     * @param slot the index of the slot
+     */
+    protected void runSlot(int slot) {
+        for (int launch = 0; launch < MAX_LAUNCHES; launch++) {
+            ServerSocket server = null;
+            Socket socket = null;
+            Process process = null;
+            Integer iteration = null;
+            try {
+                server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                process = launchWorker(server.getLocalPort());
+                socket = acceptWorker(server, process);
+
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.flush();
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+                out.writeObject(setup(slot, launch));
+                out.reset();
+                out.flush();
+                connected();
+                socket.setSoTimeout(m_search.getWorkerTimeout() * 1000);
+
+                while ((iteration = nextIteration()) != null) {
+                    out.writeInt(iteration);
+                    out.flush();
+                    Object reply;
+                    try {
+                        reply = in.readObject();
+                    } catch (SocketTimeoutException e) {
+                        throw new IOException("Worker did not return iteration " + iteration + " within "
+                                + m_search.getWorkerTimeout() + " s");
+                    }
+                    if (reply instanceof Exception) {
+                        failed((Exception) reply);
+                        return;
+                    }
+                    finished((SimulatedAnnealingStepwise.IterationResult) reply);
+                    iteration = null;
+                }
+                out.writeInt(-1);
+                out.flush();
+                return;
+            } catch (Throwable e) {
+                // errors too, eg. running out of memory reading a reply, or the slot would
+                // leave its iteration unfinished and the other slots waiting for it
+                if (iteration != null) {
+                    reassign(iteration);
+                }
+                if (process != null) {
+                    // a hung worker may not react to a request to exit
+                    process.destroyForcibly();
+                }
+                System.err.println("Simulated annealing worker " + slot + " failed: " + e);
+            } finally {
+                try {
+                    if (socket != null) {
+                        socket.close();
+                    }
+                    if (server != null) {
+                        server.close();
+                    }
+                } catch (IOException e) {
+                    // nothing left to do with them
+                }
+                if (process != null) {
+                    try {
+                        process.waitFor();
+                    } catch (InterruptedException e) {
+                        process.destroy();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for a launched worker to connect, failing as soon as its process exits.
+     * Connections that do not start with the token are closed before anything is
+     * deserialized from them.
+     *
+     * @param server the socket the worker connects to
+     * @param process the worker process
+     * @return the connection
+     * @throws IOException if the worker exits or does not connect in time
+     */
+    protected Socket acceptWorker(ServerSocket server, Process process) throws IOException {
+        server.setSoTimeout(CONNECT_POLL);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                try {
+                    // the token as written by writeUTF, checking its length before reading it
+                    byte[] expected = m_token.getBytes("UTF-8");
+                    socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    if (in.readUnsignedShort() == expected.length) {
+                        byte[] token = new byte[expected.length];
+                        in.readFully(token);
+                        if (MessageDigest.isEqual(token, expected)) {
+                            socket.setSoTimeout(0);
+                            return socket;
+                        }
+                    }
+                } catch (IOException e) {
+                    // not a worker, keep waiting for it
+                }
+                socket.close();
+            } catch (SocketTimeoutException e) {
+                if (!process.isAlive()) {
+                    throw new IOException("Worker process exited with code " + process.exitValue() + " before connecting");
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Worker process did not connect within " + CONNECT_TIMEOUT + " ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the class path of the workers from the locations the worker, Weka and the
+     * evaluator were loaded from, followed by the class path of this JVM. The first ones
+     * matter when this search is installed as a Weka package, which is not on the class path.
+     *
+     * @return the class path
+     * @throws Exception if a location can't be converted to a file
+     */
+    protected String workerClassPath() throws Exception {
+        Set<String> entries = new LinkedHashSet<String>();
+        for (Class<?> c : new Class<?>[]{SimulatedAnnealingWorker.class, ASEvaluation.class, m_search.m_ASEval.getClass()}) {
+            CodeSource source = c.getProtectionDomain().getCodeSource();
+            if (source != null && source.getLocation() != null) {
+                entries.add(new File(source.getLocation().toURI()).getPath());
+            }
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (entry.length() > 0) {
+                entries.add(entry);
+            }
+        }
+        StringBuilder classPath = new StringBuilder();
+        for (String entry : entries) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparator);
+            }
+            classPath.append(entry);
+        }
+        return classPath.toString();
+    }
+
+    /**
+     * Starts a worker JVM.
+     *
+     * @param port the port the worker connects to
+     * @return the worker process
+     * @throws Exception if the process can't be started
+     */
+    protected Process launchWorker(int port) throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String option : Utils.splitOptions(m_search.getWorkerJvmOptions())) {
+            command.add(option);
+        }
+        command.add("-cp");
+        command.add(workerClassPath());
+        command.add(SimulatedAnnealingWorker.class.getName());
+        command.add("" + port);
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        Writer token = new OutputStreamWriter(process.getOutputStream(), "UTF-8");
+        token.write(m_token + "\n");
+        token.close();
+        return process;
+    }
+
+    /**
+     * Builds what a worker needs to run iterations.
+     *
+     * @param slot the index of the slot
+     * @param launch the number of workers the slot launched before
+     * @return the setup of the worker
+     */
+    protected SimulatedAnnealingWorker.Setup setup(int slot, int launch) {
+        SimulatedAnnealingWorker.Setup setup = new SimulatedAnnealingWorker.Setup();
+        setup.options = m_search.getOptions();
+        setup.numAttribs = m_search.m_numAttribs;
+        setup.hasClass = m_search.m_hasClass;
+        setup.classIndex = m_search.m_classIndex;
+        setup.starting = m_search.m_starting;
+        setup.candidates = m_search.m_candidates;
+        setup.seedGroup = m_search.m_seedGroup;
+
+        ASEvaluation evaluator = m_search.m_ASEval;
+        if (evaluator instanceof OptionHandler) {
+            String[] options = ((OptionHandler) evaluator).getOptions();
+            setup.evaluatorSpec = new String[options.length + 1];
+            setup.evaluatorSpec[0] = evaluator.getClass().getName();
+            System.arraycopy(options, 0, setup.evaluatorSpec, 1, options.length);
+            setup.data = m_data;
+        } else {
+            setup.evaluator = evaluator;
+        }
+
+        setup.traceFile = m_search.getTraceFile().equals("") ? ""
+                : m_search.getTraceFile() + ".worker" + slot + "-" + launch;
+        return setup;
+    }
+
+    /**
+     * Records that a worker has connected.
+     */
+    protected synchronized void connected() {
+        m_connected = true;
+    }
+
+    /**
+     * Waits for an iteration to run.
+     *
+     * @return the iteration, null if there is nothing left to run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected synchronized Integer nextIteration() throws InterruptedException {
+        // an iteration running in another worker may still come back
+        while (m_pending.isEmpty() && m_remaining > 0 && m_error == null) {
+            wait();
+        }
+        return m_error == null ? m_pending.poll() : null;
+    }
+
+    /**
+     * Stores the result of an iteration.
+     *
+     * @param result the result
+     */
+    protected synchronized void finished(SimulatedAnnealingStepwise.IterationResult result) {
+        m_results[result.iteration] = result;
+        m_remaining--;
+        notifyAll();
+    }
+
+    /**
+     * Returns the iteration of a failed worker to the pending ones.
+     *
+     * @param iteration the iteration
+     */
+    protected synchronized void reassign(int iteration) {
+        m_pending.addFirst(iteration);
+        notifyAll();
+    }
+
+    /**
+     * Stops all slots after an iteration failed in a worker.
+     *
+     * @param e the error of the iteration
+     */
+    protected synchronized void failed(Exception e) {
+        if (m_error == null) {
+            m_error = e;
+        }
+        notifyAll();
+    }
+}
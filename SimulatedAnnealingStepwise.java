@@ -82,6 +82,73 @@ import java.util.*;
  * </pre>
  * <p/>
  * <pre>
+ * -W &lt;window size&gt;
+ *  Specify the sliding window used for the mean change (0 = whole iteration)
+ * </pre>
+ * <p/>
+ * <pre>
+ * -M &lt;number of steps&gt;
+ *  Specify the steps without improvement that stop an iteration (0 = off)
+ * </pre>
+ * <p/>
+ * <pre>
+ * -N &lt;number of steps&gt;
+ *  Specify the minimum steps in each iteration
+ * </pre>
+ * <p/>
+ * <pre>
+ * -L
+ *  Keep stepping iterations stopped early until the cumulative average rule
+ *  fires, to report the evaluations the other criteria save
+ * </pre>
+ * <p/>
+ * <pre>
+ * -B &lt;number of evaluations&gt;
+ *  Specify the maximum subset evaluations of the search (0 = unlimited)
+ * </pre>
+ * <p/>
+ * <pre>
+ * -G &lt;random|ranker|forward&gt;
+ *  Specify how the starting set of each iteration is chosen
+ * </pre>
+ * <p/>
+ * <pre>
+ * -E &lt;attribute evaluator specification&gt;
+ *  Specify the attribute evaluator ranking the attributes for -G ranker
+ *  (default weka.attributeSelection.InfoGainAttributeEval)
+ * </pre>
+ * <p/>
+ * <pre>
+ * -K &lt;number of steps&gt;
+ *  Specify the steps of the greedy forward pass for -G forward
+ * </pre>
+ * <p/>
+ * <pre>
+ * -Q &lt;probability&gt;
+ *  Specify the probability of replacing each seeded attribute by a random one
+ * </pre>
+ * <p/>
+ * <pre>
+ * -X &lt;number of workers&gt;
+ *  Specify the number of worker processes running the iterations (0 = in this process)
+ * </pre>
+ * <p/>
+ * <pre>
+ * -J &lt;JVM options&gt;
+ *  Specify the JVM options of the worker processes, eg. -Xmx8g
+ * </pre>
+ * <p/>
+ * <pre>
+ * -Y &lt;seconds&gt;
+ *  Specify the seconds a worker has for an iteration before it is replaced (0 = no limit)
+ * </pre>
+ * <p/>
+ * <pre>
+ * -F &lt;file&gt;
+ *  Write a binary trace of every step to the file
+ * </pre>
+ * <p/>
+ * <pre>
  * -D
  *  Print debugging output
  * </pre>
@@ -156,6 +223,134 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
      */
     protected boolean m_debug = false;
 
+    /**
+     * start each iteration from a random set
+     */
+    public static final int INIT_RANDOM = 0;
+
+    /**
+     * start each iteration from the top of a univariate ranking
+     */
+    public static final int INIT_RANKER = 1;
+
+    /**
+     * start each iteration from the result of a greedy forward pass
+     */
+    public static final int INIT_FORWARD = 2;
+
+    /**
+     * the ways to choose the starting set of an iteration
+     */
+    public static final Tag[] TAGS_INITIALIZATION = {
+            new Tag(INIT_RANDOM, "random", "Random set"),
+            new Tag(INIT_RANKER, "ranker", "Top of the attribute ranking"),
+            new Tag(INIT_FORWARD, "forward", "Greedy forward pass")};
+
+    /**
+     * how the starting set of an iteration is chosen when no start set is given
+     */
+    protected int m_initialization = INIT_RANDOM;
+
+    /**
+     * the attribute evaluator ranking the attributes for INIT_RANKER
+     */
+    protected ASEvaluation m_rankerEvaluator = new InfoGainAttributeEval();
+
+    /**
+     * the number of steps of the greedy forward pass for INIT_FORWARD
+     */
+    protected int m_forwardSteps = 5;
+
+    /**
+     * the probability of replacing each attribute of a seeded starting set by a random one
+     */
+    protected double m_seedPerturbation = 0.2;
+
+    /**
+     * the attributes that are not the class
+     */
+    protected int[] m_candidates;
+
+    /**
+     * the seeded starting set of every iteration, before perturbation
+     */
+    protected int[] m_seedGroup;
+
+    /**
+     * If set then iterations stopped before the cumulative average rule keep stepping
+     * until it fires, to count the evaluations saved
+     */
+    protected boolean m_measureSavings = false;
+
+    /**
+     * the file the binary step trace is written to, empty for no trace
+     */
+    protected String m_traceFile = "";
+
+    /**
+     * the number of worker processes running the iterations, 0 to run them in this process
+     */
+    protected int m_numWorkers = 0;
+
+    /**
+     * the JVM options of the worker processes
+     */
+    protected String m_workerJvmOptions = "";
+
+    /**
+     * the seconds a worker process has for an iteration before it is replaced, 0 for no limit
+     */
+    protected int m_workerTimeout = 0;
+
+    /**
+     * The subset an iteration ended with, its merit and how the iteration went.
+     */
+    protected static class IterationResult implements java.io.Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the index of the iteration
+         */
+        int iteration;
+
+        /**
+         * the subset the iteration ended with
+         */
+        BitSet group;
+
+        /**
+         * the merit of the subset
+         */
+        double merit;
+
+        /**
+         * the number of subset evaluations of the iteration
+         */
+        int evaluations;
+
+        /**
+         * true if the iteration was stopped by the change threshold
+         */
+        boolean thresholdStop;
+
+        /**
+         * true if the iteration was stopped by the patience
+         */
+        boolean patienceStop;
+
+        /**
+         * true if the iteration stopped before the cumulative average rule would have
+         */
+        boolean earlyStop;
+
+        /**
+         * the evaluations the cumulative average rule would have added, negative when it
+         * would have stopped the iteration earlier, when measured
+         */
+        int savedEvaluations;
+    }
+
     //--------------------------------------------------Simulated Variables ------------------------------------------------
     //--------------------------------------------------Simulated Variables ------------------------------------------------
     //--------------------------------------------------Simulated Variables ------------------------------------------------
@@ -186,7 +381,46 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
     /**
      * the minimum steps in each iteration
      */
-    private int minimum_steps = 10;
+    protected int minimum_steps = 10;
+    /**
+     * the number of last steps averaged by the change threshold, 0 averages over the whole iteration
+     */
+    protected int annealing_window = 0;
+    /**
+     * the number of steps without improving the best merit of the iteration that stops it, 0 disables it
+     */
+    protected int annealing_patience = 0;
+    /**
+     * the maximum number of subset evaluations of the whole search, 0 for no limit.
+     * Every attribute the ranker evaluator ranks counts as one.
+     */
+    protected int annealing_max_evaluations = 0;
+
+    /**
+     * the number of subset evaluations done by the last search, including the attribute evaluations of the ranking
+     */
+    protected int m_evaluations;
+    /**
+     * the number of attribute evaluations of the ranking done by the last search
+     */
+    protected int m_rankingEvaluations;
+    /**
+     * the number of iterations stopped by the change threshold in the last search
+     */
+    protected int m_thresholdStops;
+    /**
+     * the number of iterations stopped by the patience in the last search
+     */
+    protected int m_patienceStops;
+    /**
+     * the number of iterations in the last search that stopped before the cumulative average rule would have
+     */
+    protected int m_earlyStops;
+    /**
+     * the number of evaluations the cumulative average rule would have added in the last search,
+     * less those it would have saved
+     */
+    protected int m_savedEvaluations;
 
     /**
      * Constructor
@@ -309,6 +543,86 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
         this.annealing_temperature = annealing_temperature;
     }
 
+    /**
+     *
+     * @return the number of last steps averaged by the change threshold
+     */
+    public int getAnnealing_window() {
+        return annealing_window;
+    }
+
+    /**
+     * sets the number of last steps averaged by the change threshold, 0 averages over the whole iteration
+     * @param annealing_window
+     */
+    public void setAnnealing_window(int annealing_window) {
+        this.annealing_window = annealing_window;
+    }
+
+    /**
+     *
+     * @return the number of steps without improvement that stops an iteration
+     */
+    public int getAnnealing_patience() {
+        return annealing_patience;
+    }
+
+    /**
+     * sets the number of steps without improving the best merit of the iteration that stops it, 0 disables it
+     * @param annealing_patience
+     */
+    public void setAnnealing_patience(int annealing_patience) {
+        this.annealing_patience = annealing_patience;
+    }
+
+    /**
+     *
+     * @return the maximum number of subset evaluations of the search
+     */
+    public int getAnnealing_max_evaluations() {
+        return annealing_max_evaluations;
+    }
+
+    /**
+     * sets the maximum number of subset evaluations of the whole search, 0 for no limit
+     * @param annealing_max_evaluations
+     */
+    public void setAnnealing_max_evaluations(int annealing_max_evaluations) {
+        this.annealing_max_evaluations = annealing_max_evaluations;
+    }
+
+    /**
+     *
+     * @return the minimum steps in each iteration
+     */
+    public int getMinimum_steps() {
+        return minimum_steps;
+    }
+
+    /**
+     * sets the minimum steps in each iteration
+     * @param minimum_steps
+     */
+    public void setMinimum_steps(int minimum_steps) {
+        this.minimum_steps = minimum_steps;
+    }
+
+    /**
+     *
+     * @return the number of subset evaluations done by the last search, including the attribute evaluations of the ranking
+     */
+    public int getM_evaluations() {
+        return m_evaluations;
+    }
+
+    /**
+     *
+     * @return the number of attribute evaluations of the ranking done by the last search
+     */
+    public int getM_rankingEvaluations() {
+        return m_rankingEvaluations;
+    }
+
 
     /**
      * Returns the tip text for this property
@@ -401,6 +715,270 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
         m_debug = d;
     }
 
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String initializationTipText() {
+        return "How the starting set of each iteration is chosen when no start set is given: "
+                + "a random set, the top of the attribute ranking or the result of a greedy "
+                + "forward pass, the last two with random perturbation.";
+    }
+
+    /**
+     * Get how the starting set of each iteration is chosen
+     *
+     * @return the initialization strategy
+     */
+    public SelectedTag getInitialization() {
+        return new SelectedTag(m_initialization, TAGS_INITIALIZATION);
+    }
+
+    /**
+     * Set how the starting set of each iteration is chosen
+     *
+     * @param tag the initialization strategy
+     */
+    public void setInitialization(SelectedTag tag) {
+        if (tag.getTags() == TAGS_INITIALIZATION) {
+            m_initialization = tag.getSelectedTag().getID();
+        }
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String rankerEvaluatorTipText() {
+        return "The attribute evaluator ranking the attributes when starting from the top of the ranking.";
+    }
+
+    /**
+     * Get the attribute evaluator ranking the attributes
+     *
+     * @return the attribute evaluator
+     */
+    public ASEvaluation getRankerEvaluator() {
+        return m_rankerEvaluator;
+    }
+
+    /**
+     * Set the attribute evaluator ranking the attributes
+     *
+     * @param e the attribute evaluator
+     */
+    public void setRankerEvaluator(ASEvaluation e) {
+        m_rankerEvaluator = e;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String forwardStepsTipText() {
+        return "The number of attributes added by the greedy forward pass.";
+    }
+
+    /**
+     * Get the number of steps of the greedy forward pass
+     *
+     * @return the number of steps
+     */
+    public int getForwardSteps() {
+        return m_forwardSteps;
+    }
+
+    /**
+     * Set the number of steps of the greedy forward pass
+     *
+     * @param k the number of steps
+     */
+    public void setForwardSteps(int k) {
+        m_forwardSteps = k;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String seedPerturbationTipText() {
+        return "The probability of replacing each attribute of a seeded starting set by a random one.";
+    }
+
+    /**
+     * Get the probability of replacing each seeded attribute
+     *
+     * @return the probability
+     */
+    public double getSeedPerturbation() {
+        return m_seedPerturbation;
+    }
+
+    /**
+     * Set the probability of replacing each seeded attribute
+     *
+     * @param q the probability
+     */
+    public void setSeedPerturbation(double q) {
+        m_seedPerturbation = q;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String numWorkersTipText() {
+        return "The number of local worker JVMs the iterations are distributed to, each with "
+                + "its own copy of the data and the evaluator. 0 runs them in this JVM.";
+    }
+
+    /**
+     * Get the number of worker processes
+     *
+     * @return the number of worker processes, 0 if the iterations run in this process
+     */
+    public int getNumWorkers() {
+        return m_numWorkers;
+    }
+
+    /**
+     * Set the number of worker processes
+     *
+     * @param n the number of worker processes, 0 to run the iterations in this process
+     */
+    public void setNumWorkers(int n) {
+        m_numWorkers = n;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String workerJvmOptionsTipText() {
+        return "The JVM options of the worker processes, eg. -Xmx8g.";
+    }
+
+    /**
+     * Get the JVM options of the worker processes
+     *
+     * @return the JVM options
+     */
+    public String getWorkerJvmOptions() {
+        return m_workerJvmOptions;
+    }
+
+    /**
+     * Set the JVM options of the worker processes
+     *
+     * @param o the JVM options
+     */
+    public void setWorkerJvmOptions(String o) {
+        m_workerJvmOptions = o;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String workerTimeoutTipText() {
+        return "The seconds a worker process has to return an iteration, its first one "
+                + "including building the evaluator, before it is killed and the iteration "
+                + "handed to another worker. Catches workers that hang without exiting, eg. "
+                + "in garbage collection at their heap limit. 0 waits forever.";
+    }
+
+    /**
+     * Get the seconds a worker process has for an iteration
+     *
+     * @return the seconds, 0 for no limit
+     */
+    public int getWorkerTimeout() {
+        return m_workerTimeout;
+    }
+
+    /**
+     * Set the seconds a worker process has for an iteration
+     *
+     * @param t the seconds, 0 for no limit
+     */
+    public void setWorkerTimeout(int t) {
+        m_workerTimeout = t;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String measureSavingsTipText() {
+        return "If true then iterations stopped before the cumulative average rule keep "
+                + "stepping until it fires, to report the evaluations the window and patience "
+                + "criteria save. The result is that of the early stop, the extra evaluations "
+                + "are not counted in the subset evaluations.";
+    }
+
+    /**
+     * Get whether the evaluations saved versus the cumulative average rule are measured
+     *
+     * @return true if they are measured
+     */
+    public boolean getMeasureSavings() {
+        return m_measureSavings;
+    }
+
+    /**
+     * Set whether the evaluations saved versus the cumulative average rule are measured
+     *
+     * @param m true if they should be measured
+     */
+    public void setMeasureSavings(boolean m) {
+        m_measureSavings = m;
+    }
+
+    /**
+     * Returns the tip text for this property
+     *
+     * @return tip text for this property suitable for displaying in the
+     * explorer/experimenter gui
+     */
+    public String traceFileTipText() {
+        return "File to write a binary record of every step to, for offline analysis "
+                + "with StepTraceReader. Leave empty for no trace.";
+    }
+
+    /**
+     * Get the file the binary step trace is written to
+     *
+     * @return the trace file, empty if no trace is written
+     */
+    public String getTraceFile() {
+        return m_traceFile;
+    }
+
+    /**
+     * Set the file the binary step trace is written to
+     *
+     * @param f the trace file, empty for no trace
+     */
+    public void setTraceFile(String f) {
+        m_traceFile = f;
+    }
+
 
     /**
      * Returns an enumeration describing the available options.
@@ -409,16 +987,32 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
      **/
     @Override
     public Enumeration<Option> listOptions() {
-        Vector<Option> newVector = new Vector<Option>(8);
+        Vector<Option> newVector = new Vector<Option>(20);
 
         newVector.addElement(new Option("\tUse conservative  search", "-C", 0, "-C"));
         newVector.addElement(new Option("\tPrint debugging output", "-D", 0, "-D"));
+        newVector.addElement(new Option("\tSpecify how the starting set of each iteration is chosen", "-G", 1, "-G <random|ranker|forward>"));
+        newVector.addElement(new Option("\tSpecify the attribute evaluator ranking the attributes for -G ranker"
+                + "\n\t(default weka.attributeSelection.InfoGainAttributeEval)", "-E", 1, "-E <attribute evaluator specification>"));
+        newVector.addElement(new Option("\tSpecify the steps of the greedy forward pass for -G forward", "-K", 1, "<Integer>"));
+        newVector.addElement(new Option("\tSpecify the probability of replacing each seeded attribute by a random one", "-Q", 1, "<0-1>"));
+        newVector.addElement(new Option("\tSpecify the number of worker processes running the iterations (0 = in this process)", "-X", 1, "<Integer>"));
+        newVector.addElement(new Option("\tSpecify the JVM options of the worker processes, eg. -Xmx8g", "-J", 1, "-J <JVM options>"));
+        newVector.addElement(new Option("\tSpecify the seconds a worker has for an iteration before it is replaced (0 = no limit)", "-Y", 1, "<Integer>"));
+        newVector.addElement(new Option("\tWrite a binary trace of every step to the file", "-F", 1, "-F <file>"));
         newVector.addElement(new Option("\tSpecify a starting set of attributes." + "\n\tEg. 1,3,5-7.", "-P", 1, "-P <start set>"));
         newVector.addElement(new Option("\tSpecify number of iterations to start", "-I", 1, "<Integer>"));
         newVector.addElement(new Option("\tSpecify annealing start temperature", "-T", 1, "<0-1>"));
         newVector.addElement(new Option("\tSpecify annealing coefficient ", "-A", 1, "<0-1>"));
         newVector.addElement(new Option("\tSpecify the random seed", "-R", 1, "<Integer>"));
         newVector.addElement(new Option("\tSpecify stopping threshold", "-S", 1, "<0-1>"));
+        newVector.addElement(new Option("\tSpecify the sliding window used for the mean change (0 = whole iteration)", "-W", 1, "<Integer>"));
+        newVector.addElement(new Option("\tSpecify the steps without improvement that stop an iteration (0 = off)", "-M", 1, "<Integer>"));
+        newVector.addElement(new Option("\tSpecify the minimum steps in each iteration", "-N", 1, "<Integer>"));
+        newVector.addElement(new Option("\tKeep stepping iterations stopped early until the cumulative average rule"
+                + "\n\tfires, to report the evaluations the other criteria save", "-L", 0, "-L"));
+        newVector.addElement(new Option("\tSpecify the maximum subset evaluations of the search (0 = unlimited)."
+                + "\n\tEvery attribute ranked for -G ranker counts as one", "-B", 1, "<Integer>"));
 
         return newVector.elements();
 
@@ -446,12 +1040,38 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
         if (getDebuggingOutput()) {
             options.add("-D");
         }
+        if (getMeasureSavings()) {
+            options.add("-L");
+        }
 
         if (!(getStartSet().equals(""))) {
             options.add("-P");
             options.add("" + startSetToString());
         }
 
+        options.add("-G");
+        options.add(getInitialization().getSelectedTag().getIDStr());
+        options.add("-E");
+        options.add(getRankerEvaluatorSpec());
+        options.add("-K");
+        options.add("" + getForwardSteps());
+        options.add("-Q");
+        options.add("" + getSeedPerturbation());
+
+        options.add("-X");
+        options.add("" + getNumWorkers());
+        if (!(getWorkerJvmOptions().equals(""))) {
+            options.add("-J");
+            options.add(getWorkerJvmOptions());
+        }
+        options.add("-Y");
+        options.add("" + getWorkerTimeout());
+
+        if (!(getTraceFile().equals(""))) {
+            options.add("-F");
+            options.add(getTraceFile());
+        }
+
         options.add("-R");
         options.add("" + getAnnealing_random_seed());
         options.add("-T");
@@ -462,6 +1082,14 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
         options.add("" + getAnnealing_coefficient());
         options.add("-S");
         options.add("" + getAnnealing_change_threshold());
+        options.add("-W");
+        options.add("" + getAnnealing_window());
+        options.add("-M");
+        options.add("" + getAnnealing_patience());
+        options.add("-N");
+        options.add("" + getMinimum_steps());
+        options.add("-B");
+        options.add("" + getAnnealing_max_evaluations());
 
         return options.toArray(new String[0]);
     }
@@ -479,12 +1107,50 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
 
         setConservativeSelection(Utils.getFlag('C', options));
         setDebuggingOutput(Utils.getFlag('D', options));
+        setMeasureSavings(Utils.getFlag('L', options));
 
         optionString = Utils.getOption('P', options);
         if (optionString.length() != 0) {
             setStartSet(optionString);
         }
 
+        optionString = Utils.getOption('G', options);
+        if (optionString.length() != 0) {
+            setInitialization(new SelectedTag(optionString, TAGS_INITIALIZATION));
+        }
+
+        optionString = Utils.getOption('E', options);
+        if (optionString.length() != 0) {
+            String[] spec = Utils.splitOptions(optionString);
+            String name = spec[0];
+            spec[0] = "";
+            setRankerEvaluator(ASEvaluation.forName(name, spec));
+        }
+
+        optionString = Utils.getOption('K', options);
+        if (optionString.length() != 0) {
+            setForwardSteps(Integer.parseInt(optionString));
+        }
+
+        optionString = Utils.getOption('Q', options);
+        if (optionString.length() != 0) {
+            setSeedPerturbation(Double.parseDouble(optionString));
+        }
+
+        optionString = Utils.getOption('X', options);
+        if (optionString.length() != 0) {
+            setNumWorkers(Integer.parseInt(optionString));
+        }
+
+        setWorkerJvmOptions(Utils.getOption('J', options));
+
+        optionString = Utils.getOption('Y', options);
+        if (optionString.length() != 0) {
+            setWorkerTimeout(Integer.parseInt(optionString));
+        }
+
+        setTraceFile(Utils.getOption('F', options));
+
         optionString = Utils.getOption('T', options);
         if (optionString.length() != 0) {
             Double temp = Double.valueOf(optionString);
@@ -512,6 +1178,39 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
         if (optionString.length() != 0) {
             setAnnealing_random_seed(Integer.parseInt(optionString));
         }
+
+        optionString = Utils.getOption('W', options);
+        if (optionString.length() != 0) {
+            setAnnealing_window(Integer.parseInt(optionString));
+        }
+
+        optionString = Utils.getOption('M', options);
+        if (optionString.length() != 0) {
+            setAnnealing_patience(Integer.parseInt(optionString));
+        }
+
+        optionString = Utils.getOption('N', options);
+        if (optionString.length() != 0) {
+            setMinimum_steps(Integer.parseInt(optionString));
+        }
+
+        optionString = Utils.getOption('B', options);
+        if (optionString.length() != 0) {
+            setAnnealing_max_evaluations(Integer.parseInt(optionString));
+        }
+    }
+
+    /**
+     * Returns the ranker evaluator with its options as a String
+     *
+     * @return the specification of the ranker evaluator
+     */
+    protected String getRankerEvaluatorSpec() {
+        String spec = m_rankerEvaluator.getClass().getName();
+        if (m_rankerEvaluator instanceof OptionHandler) {
+            spec += " " + Utils.joinOptions(((OptionHandler) m_rankerEvaluator).getOptions());
+        }
+        return spec.trim();
     }
 
     /**
@@ -561,12 +1260,24 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
                 + ".\n\tStart set: ");
 
         if (m_starting == null) {
-            FString.append("random set\n");
+            FString.append(getInitialization().getSelectedTag().getReadable() + "\n");
 
         } else {
             FString.append(startSetToString() + "\n");
         }
 
+        FString.append("\tSubset evaluations: " + m_evaluations);
+        if (m_rankingEvaluations > 0) {
+            FString.append(" (including " + m_rankingEvaluations + " attribute evaluations of the ranking)");
+        }
+        FString.append("\n");
+        FString.append("\tIterations stopped by threshold: " + m_thresholdStops
+                + ", by patience: " + m_patienceStops + "\n");
+        FString.append("\tIterations stopped before the cumulative average rule: " + m_earlyStops + "\n");
+        if (m_measureSavings) {
+            FString.append("\tEvaluations saved versus the cumulative average rule: " + m_savedEvaluations + "\n");
+        }
+
         return FString.toString();
     }
 
@@ -606,113 +1317,422 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
         }
 
         final SubsetEvaluator ASEvaluator = (SubsetEvaluator) m_ASEval;
+        m_evaluations = 0;
+        m_rankingEvaluations = 0;
+        m_thresholdStops = 0;
+        m_patienceStops = 0;
+        m_earlyStops = 0;
+        m_savedEvaluations = 0;
+
+        m_candidates = new int[m_hasClass ? m_numAttribs - 1 : m_numAttribs];
+        for (int a = 0, c = 0; a < m_numAttribs; a++) {
+            if (a != m_classIndex) {
+                m_candidates[c++] = a;
+            }
+        }
+        if (m_candidates.length == 0) {
+            throw new Exception("There are no attributes to search besides the class!");
+        }
+        m_seedGroup = null;
+        if (m_starting == null && m_initialization == INIT_RANKER) {
+            if (!m_hasClass || data == null) {
+                throw new Exception("Starting from the attribute ranking needs the training data with a class!");
+            }
+            m_seedGroup = rankerSeed(data);
+        } else if (m_starting == null && m_initialization == INIT_FORWARD) {
+            m_seedGroup = attributeList(forwardPass(ASEvaluator));
+        }
+        if (m_numWorkers > 0) {
+            if (annealing_max_evaluations > 0) {
+                throw new Exception("The evaluation budget is not supported with worker processes!");
+            }
+            if (data == null) {
+                throw new Exception("Worker processes need the training data!");
+            }
+            // iterations the workers could not finish are run here, count them once below
+            int evaluations = m_evaluations;
+            IterationResult[] results = new SimulatedAnnealingCoordinator(this, data).run();
+            m_evaluations = evaluations;
+            for (IterationResult result : results) {
+                m_evaluations += result.evaluations;
+                mergeIteration(result);
+            }
+            return attributeList(m_best_group);
+        }
 
+        StepTraceWriter trace = m_traceFile.equals("") ? null : new StepTraceWriter(m_traceFile);
+        try {
+            for (int iteration = 0; iteration < annealing_iterations && !budgetExhausted(); iteration++) {
+                mergeIteration(runIteration(iteration, ASEvaluator, trace));
+            }
+        } finally {
+            if (trace != null) {
+                trace.close();
+            }
+        }
+        // the ranking can use the whole budget before any subset is evaluated
+        return m_best_group == null ? new int[0] : attributeList(m_best_group);
+    }
 
-        int number_of_iterations = 0;
-        while (number_of_iterations < annealing_iterations) {
-
-            int i;
-            BitSet current_best_group = new BitSet(m_numAttribs);
-            BitSet temp_group;
-            double best_merit;
-            double temp_merit;
-            boolean done = false;
-            boolean addone = false;
-            boolean realImprove;
-            boolean annealingMistake;
-            double sumMeritChange = 0;
-            int stepCounter = 0;
-            double iteration_temperature = annealing_temperature;
-
-            // If a starting subset has been supplied, then initialise the bitset
-            if (m_starting != null) {
-                for (i = 0; i < m_starting.length; i++) {
-                    if ((m_starting[i]) != m_classIndex) {
-                        current_best_group.set(m_starting[i]);
-                    }
+    /**
+     * Runs a single iteration of the annealing from its own starting set. The random
+     * generator is seeded from the random seed and the iteration, so an iteration gives
+     * the same result whichever process runs it.
+     *
+     * @param iteration the index of the iteration
+     * @param ASEvaluator the subset evaluator
+     * @param trace the step trace, null for no trace
+     * @return the subset the iteration ended with, its merit and statistics
+     * @throws Exception if a subset can't be evaluated
+     */
+    protected IterationResult runIteration(int iteration, SubsetEvaluator ASEvaluator, StepTraceWriter trace) throws Exception {
+        random = new Random(((long) annealing_random_seed << 32) + iteration);
+        IterationResult result = new IterationResult();
+        result.iteration = iteration;
+        int startEvaluations = m_evaluations;
+
+        int i;
+        BitSet current_best_group = new BitSet(m_numAttribs);
+        BitSet temp_group;
+        double best_merit;
+        double temp_merit;
+        boolean done = false;
+        boolean addone = false;
+        boolean realImprove;
+        boolean annealingMistake;
+        double sumMeritChange = 0;
+        int stepCounter = 0;
+        double iteration_temperature = annealing_temperature;
+        // the last changes, used when the mean change is computed over a sliding window
+        double[] windowChanges = annealing_window > 0 ? new double[annealing_window] : null;
+        double windowSum = 0;
+        double iteration_best_merit;
+        int lastImprovement = 0;
+
+        // If a starting subset has been supplied, then initialise the bitset
+        if (m_starting != null) {
+            for (i = 0; i < m_starting.length; i++) {
+                if ((m_starting[i]) != m_classIndex) {
+                    current_best_group.set(m_starting[i]);
                 }
+            }
+        } else if (m_seedGroup != null) {
+            current_best_group = perturbGroup(m_seedGroup);
+        } else {
+            current_best_group = selectRandomGroup(m_numAttribs);
+        }
+
+        // Evaluate the initial subset
+        long evaluationStart = System.nanoTime();
+        best_merit = ASEvaluator.evaluateSubset(current_best_group);
+        m_evaluations++;
+        if (trace != null) {
+            trace.write(iteration, 0, -1, 0, iteration_temperature, true, System.nanoTime() - evaluationStart);
+        }
+        iteration_best_merit = best_merit;
+        progress(m_evaluations, Math.max(m_bestMerit, best_merit),
+                best_merit > m_bestMerit ? current_best_group : m_best_group);
+        done = budgetExhausted();
+        // true once the iteration has stopped and only steps on to measure the saving
+        boolean measuring = false;
+        // the step the cumulative average rule fired at, 0 while it has not
+        int legacyStep = 0;
+
+        while (!done) {
+            temp_group = (BitSet) current_best_group.clone();
+            addone = false;
+            stepCounter += 1;
+            i = m_candidates[random.nextInt(m_candidates.length)];
+
+            boolean feature_inside_set = temp_group.get(i);
+
+            // set/unset the bit
+            if (feature_inside_set) {
+                temp_group.clear(i);
+            } else {
+                temp_group.set(i);
+            }
+            evaluationStart = System.nanoTime();
+            temp_merit = ASEvaluator.evaluateSubset(temp_group);
+            long evaluationNanos = System.nanoTime() - evaluationStart;
+            if (measuring) {
+                result.savedEvaluations++;
             } else {
-                current_best_group = selectRandomGroup(m_numAttribs);
+                m_evaluations++;
+            }
+            if (m_conservativeSelection) {
+                realImprove = (temp_merit >= best_merit);
+            } else {
+                realImprove = (temp_merit > best_merit);
             }
 
-            // Evaluate the initial subset
-            best_merit = ASEvaluator.evaluateSubset(current_best_group);
+            //---------------------------------Annealing Function ---------------------------------/
+            //---------------------------------Annealing Function ---------------------------------/
+            //---------------------------------Annealing Function ---------------------------------/
+            double differential = temp_merit - best_merit;
+            annealingMistake = random.nextDouble() <= Math.exp(differential / iteration_temperature);
+            if (trace != null && !measuring) {
+                trace.write(iteration, stepCounter, i, differential, iteration_temperature,
+                        realImprove || annealingMistake, evaluationNanos);
+            }
+            iteration_temperature *= annealing_coefficient;
 
-            while (!done) {
-                temp_group = (BitSet) current_best_group.clone();
-                addone = false;
-                stepCounter += 1;
-                i = m_classIndex;
-                while (i == m_classIndex) {
-                    i = random.nextInt(m_numAttribs);
-                }
+            double change = 0;
+            if (realImprove || annealingMistake) { //should use the new subset
+                addone = true;
+                change = Math.abs(differential);
+                sumMeritChange += change;
+            }
+            if (temp_merit > iteration_best_merit) {
+                iteration_best_merit = temp_merit;
+                lastImprovement = stepCounter;
+            }
 
-                boolean feature_inside_set = temp_group.get(i);
+            //---------------------------------Convergence ---------------------------------/
+            boolean legacyDone = sumMeritChange / stepCounter < annealing_change_threshold;
+            boolean thresholdDone;
+            if (windowChanges != null) {
+                int slot = (stepCounter - 1) % annealing_window;
+                windowSum += change - windowChanges[slot];
+                windowChanges[slot] = change;
+                thresholdDone = stepCounter >= annealing_window
+                        && windowSum / annealing_window < annealing_change_threshold;
+            } else {
+                thresholdDone = legacyDone;
+            }
+            boolean patienceDone = annealing_patience > 0 && stepCounter - lastImprovement >= annealing_patience;
+            if (legacyStep == 0 && legacyDone && stepCounter > minimum_steps) {
+                legacyStep = stepCounter;
+            }
 
-                // set/unset the bit
-                if (feature_inside_set) {
-                    temp_group.clear(i);
+            if (measuring) {
+                done = legacyDone && stepCounter > minimum_steps;
+            } else {
+                done = (thresholdDone || patienceDone) && stepCounter > minimum_steps;
+            }
+            if (done && !measuring) {
+                if (thresholdDone) {
+                    result.thresholdStop = true;
                 } else {
-                    temp_group.set(i);
+                    result.patienceStop = true;
                 }
-                temp_merit = ASEvaluator.evaluateSubset(temp_group);
-                if (m_conservativeSelection) {
-                    realImprove = (temp_merit >= best_merit);
-                } else {
-                    realImprove = (temp_merit > best_merit);
+                if (legacyStep == 0) {
+                    result.earlyStop = true;
+                } else if (m_measureSavings) {
+                    // the cumulative average rule would have stopped this iteration earlier
+                    result.savedEvaluations = legacyStep - stepCounter;
                 }
-
-                //---------------------------------Annealing Function ---------------------------------/
-                //---------------------------------Annealing Function ---------------------------------/
-                //---------------------------------Annealing Function ---------------------------------/
-                double differential = temp_merit - best_merit;
-                annealingMistake = random.nextDouble() <= Math.exp(differential / iteration_temperature);
-                iteration_temperature *= annealing_coefficient;
-
-                if (realImprove || annealingMistake) { //should use the new subset
-                    addone = true;
-                    sumMeritChange += Math.abs(differential);
+            }
+            if (budgetExhausted()) {
+                done = true;
+            }
+            if (addone) {
+                if (feature_inside_set) {
+                    current_best_group.clear(i);
+                } else {
+                    current_best_group.set(i);
                 }
-
-                done = (sumMeritChange / stepCounter < annealing_change_threshold) && stepCounter > minimum_steps;
-                if (addone) {
-                    if (feature_inside_set) {
-                        current_best_group.clear(i);
-                    } else {
-                        current_best_group.set(i);
-                    }
-                    best_merit = temp_merit;
-                    if (m_debug) {
-                        System.err.print("Current subset is: ");
-                        int[] atts = attributeList(current_best_group);
-                        for (int a : atts) {
-                            System.err.print("" + (a + 1) + " ");
-                        }
-                        System.err.println("\nMerit: " + best_merit);
+                best_merit = temp_merit;
+                if (m_debug && !measuring) {
+                    StringBuilder line = new StringBuilder("Current subset is: ");
+                    for (int a = current_best_group.nextSetBit(0); a >= 0; a = current_best_group.nextSetBit(a + 1)) {
+                        line.append(a + 1).append(' ');
                     }
+                    System.err.println(line.append("\nMerit: ").append(best_merit));
                 }
             }
-
-            if (best_merit > m_bestMerit) {
-                m_bestMerit = best_merit;
-                m_best_group = (BitSet) current_best_group.clone();
+            if (!measuring) {
+                progress(m_evaluations, Math.max(m_bestMerit, best_merit),
+                best_merit > m_bestMerit ? current_best_group : m_best_group);
             }
-            number_of_iterations++;
+            if (done && result.earlyStop && m_measureSavings && !measuring && !budgetExhausted()) {
+                // keep this result, step on until the cumulative average rule fires
+                result.group = (BitSet) current_best_group.clone();
+                result.merit = best_merit;
+                measuring = true;
+                done = false;
+            }
+        }
 
+        if (!measuring) {
+            result.group = current_best_group;
+            result.merit = best_merit;
+        }
+        result.evaluations = m_evaluations - startEvaluations;
+        return result;
+    }
 
+    /**
+     * Called after every subset evaluation with the subset the search would return if its
+     * evaluation budget ended there. Does nothing here, subclasses can override it to follow
+     * the search. It is not called for iterations run in worker processes.
+     *
+     * @param evaluations the subset evaluations so far
+     * @param merit the merit of the subset the search would return, -Double.MAX_VALUE before any
+     * @param group the subset the search would return, only valid during the call, null before any
+     */
+    protected void progress(int evaluations, double merit, BitSet group) {
+    }
+
+    /**
+     * Keeps the result of an iteration if it is the best so far and counts how it stopped.
+     * Iterations must be merged in order for ties to be broken as in a sequential search.
+     *
+     * @param result the result of the iteration
+     */
+    protected void mergeIteration(IterationResult result) {
+        if (result.merit > m_bestMerit) {
+            m_bestMerit = result.merit;
+            m_best_group = (BitSet) result.group.clone();
+        }
+        if (result.thresholdStop) {
+            m_thresholdStops++;
+        }
+        if (result.patienceStop) {
+            m_patienceStops++;
+        }
+        if (result.earlyStop) {
+            m_earlyStops++;
         }
-        return attributeList(m_best_group);
+        m_savedEvaluations += result.savedEvaluations;
     }
 
+    /**
+     *
+     * @return true if the search has used all of its subset evaluations
+     */
+    protected boolean budgetExhausted() {
+        return annealing_max_evaluations > 0 && m_evaluations >= annealing_max_evaluations;
+    }
 
     private BitSet selectRandomGroup(int numAtt) {
         BitSet feats = new BitSet(numAtt);
         int numOfFeaturesToStart = (int) Math.sqrt(random.nextInt(numAtt));
-        while (numOfFeaturesToStart > 0) {
-            int currFeat = random.nextInt(numAtt);
-            if (!feats.get(currFeat) && currFeat != m_classIndex) {
-                feats.set(currFeat);
-                numOfFeaturesToStart--;
+        // partial shuffle of the candidates, so every draw picks a new attribute
+        int[] candidates = m_candidates.clone();
+        for (int k = 0; k < numOfFeaturesToStart; k++) {
+            int j = k + random.nextInt(candidates.length - k);
+            int currFeat = candidates[j];
+            candidates[j] = candidates[k];
+            candidates[k] = currFeat;
+            feats.set(currFeat);
+        }
+        return feats;
+    }
+
+    /**
+     * Ranks the attributes with the ranker evaluator and returns the top
+     * sqrt(number of attributes) of them. Every attribute evaluation counts as a
+     * subset evaluation, and the ranking stops at the attributes ranked so far
+     * when the evaluation budget is used.
+     *
+     * @param data the training instances
+     * @return the indexes of the top ranked attributes
+     * @throws Exception if the ranker evaluator can't be built
+     */
+    protected int[] rankerSeed(Instances data) throws Exception {
+        if (!(m_rankerEvaluator instanceof AttributeEvaluator)) {
+            throw new Exception(m_rankerEvaluator.getClass().getName() + " is not an " + "Attribute evaluator!");
+        }
+        m_rankerEvaluator.buildEvaluator(data);
+        final double[] merits = new double[m_numAttribs];
+        Integer[] order = new Integer[m_candidates.length];
+        int ranked = 0;
+        while (ranked < m_candidates.length && !budgetExhausted()) {
+            order[ranked] = m_candidates[ranked];
+            merits[m_candidates[ranked]] = ((AttributeEvaluator) m_rankerEvaluator).evaluateAttribute(m_candidates[ranked]);
+            ranked++;
+            m_evaluations++;
+            m_rankingEvaluations++;
+            progress(m_evaluations, m_bestMerit, m_best_group);
+        }
+        order = Arrays.copyOf(order, ranked);
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(merits[b], merits[a]);
+            }
+        });
+
+        int[] top = new int[Math.min(ranked, Math.max(1, (int) Math.round(Math.sqrt(m_candidates.length))))];
+        for (int k = 0; k < top.length; k++) {
+            top[k] = order[k];
+        }
+        return top;
+    }
+
+    /**
+     * Starts from the empty set and adds, for at most m_forwardSteps steps, the
+     * attribute that improves the merit the most. Stops early when no attribute
+     * improves it or the evaluation budget is used.
+     *
+     * @param ASEvaluator the subset evaluator
+     * @return the subset found
+     * @throws Exception if a subset can't be evaluated
+     */
+    protected BitSet forwardPass(SubsetEvaluator ASEvaluator) throws Exception {
+        BitSet group = new BitSet(m_numAttribs);
+        double merit = -Double.MAX_VALUE;
+        for (int step = 0; step < m_forwardSteps && !budgetExhausted(); step++) {
+            int bestAttribute = -1;
+            double bestMerit = merit;
+            for (int a : m_candidates) {
+                if (budgetExhausted()) {
+                    break; // a step cut by the budget still takes the best attribute it saw
+                }
+                if (group.get(a)) {
+                    continue;
+                }
+                group.set(a);
+                double temp_merit = ASEvaluator.evaluateSubset(group);
+                m_evaluations++;
+                group.clear(a);
+                if (temp_merit > bestMerit) {
+                    bestMerit = temp_merit;
+                    bestAttribute = a;
+                }
+                if (bestMerit > m_bestMerit) {
+                    BitSet returned = (BitSet) group.clone();
+                    if (bestAttribute >= 0) {
+                        returned.set(bestAttribute);
+                    }
+                    progress(m_evaluations, bestMerit, returned);
+                } else {
+                    progress(m_evaluations, m_bestMerit, m_best_group);
+                }
+            }
+            if (bestAttribute < 0) {
+                break;
+            }
+            group.set(bestAttribute);
+            merit = bestMerit;
+        }
+        if (group.cardinality() > 0 && merit > m_bestMerit) {
+            m_bestMerit = merit;
+            m_best_group = (BitSet) group.clone();
+        }
+        return group;
+    }
+
+    /**
+     * Builds a starting set from a seeded one, replacing each attribute by a
+     * random attribute outside the set with probability m_seedPerturbation.
+     *
+     * @param seed the seeded attributes
+     * @return the starting set
+     */
+    protected BitSet perturbGroup(int[] seed) {
+        BitSet feats = new BitSet(m_numAttribs);
+        for (int a : seed) {
+            feats.set(a);
+        }
+        for (int a : seed) {
+            if (random.nextDouble() < m_seedPerturbation) {
+                int replacement = m_candidates[random.nextInt(m_candidates.length)];
+                if (!feats.get(replacement)) {
+                    feats.clear(a);
+                    feats.set(replacement);
+                }
             }
         }
         return feats;
@@ -752,6 +1772,7 @@ public class SimulatedAnnealingStepwise extends ASSearch implements
      */
     protected void resetOptions() {
         m_best_group = null;
+        m_bestMerit = -Double.MAX_VALUE;
         m_ASEval = null;
         m_Instances = null;
         random = new Random(annealing_random_seed);
@@ -0,0 +1,156 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package weka.attributeSelection;
+
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * A worker process of SimulatedAnnealingStepwise, launched by
+ * {@link SimulatedAnnealingCoordinator}. It connects back to the coordinator
+ * over a local socket, builds its own copy of the evaluator on the data it
+ * receives and then runs the iterations it is sent one at a time, replying
+ * with the result of each, until it receives a negative iteration.
+ * <p/>
+ * Usage: java weka.attributeSelection.SimulatedAnnealingWorker &lt;port&gt;
+ * <br/>
+ * The token to identify with is read from the first line of the standard input.
+ *
+ * @version $Revision: 1 $
+ */
+public class SimulatedAnnealingWorker {
+
+    /**
+     * Everything a worker needs to run iterations exactly like the coordinator would.
+     */
+    protected static class Setup implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the options of the search
+         */
+        String[] options;
+
+        /**
+         * the state the search computed before the iterations
+         */
+        int numAttribs;
+        boolean hasClass;
+        int classIndex;
+        int[] starting;
+        int[] candidates;
+        int[] seedGroup;
+
+        /**
+         * the evaluator class and options, null if the evaluator itself is sent
+         */
+        String[] evaluatorSpec;
+
+        /**
+         * the built evaluator, for evaluators without options
+         */
+        ASEvaluation evaluator;
+
+        /**
+         * the training instances
+         */
+        Instances data;
+
+        /**
+         * the file of the step trace of this worker, empty for no trace
+         */
+        String traceFile;
+    }
+
+    /**
+     * Runs a worker.
+     *
+     * @param args the port of the coordinator
+     * @throws Exception if the worker can't set up or talk to the coordinator
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + SimulatedAnnealingWorker.class.getName() + " <port>");
+            System.exit(1);
+        }
+        String token = new BufferedReader(new InputStreamReader(System.in, "UTF-8")).readLine();
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]));
+        StepTraceWriter trace = null;
+        try {
+            DataOutputStream handshake = new DataOutputStream(socket.getOutputStream());
+            handshake.writeUTF(token);
+            handshake.flush();
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            Setup setup = (Setup) in.readObject();
+
+            SimulatedAnnealingStepwise search = new SimulatedAnnealingStepwise();
+            search.setOptions(setup.options);
+            search.setNumWorkers(0);
+            search.setAnnealing_max_evaluations(0);
+            search.setTraceFile(setup.traceFile);
+            search.m_numAttribs = setup.numAttribs;
+            search.m_hasClass = setup.hasClass;
+            search.m_classIndex = setup.classIndex;
+            search.m_starting = setup.starting;
+            search.m_candidates = setup.candidates;
+            search.m_seedGroup = setup.seedGroup;
+
+            ASEvaluation evaluator = setup.evaluator;
+            if (setup.evaluatorSpec != null) {
+                String[] options = setup.evaluatorSpec.clone();
+                options[0] = "";
+                evaluator = ASEvaluation.forName(setup.evaluatorSpec[0], options);
+                evaluator.buildEvaluator(setup.data);
+            }
+            setup = null; // let the data be collected unless the evaluator keeps it
+
+            int iteration;
+            while ((iteration = in.readInt()) >= 0) {
+                if (trace == null && !search.getTraceFile().equals("")) {
+                    trace = new StepTraceWriter(search.getTraceFile());
+                }
+                Object reply;
+                try {
+                    reply = search.runIteration(iteration, (SubsetEvaluator) evaluator, trace);
+                } catch (Exception e) {
+                    reply = e;
+                }
+                out.writeObject(reply);
+                out.reset();
+                out.flush();
+            }
+        } finally {
+            if (trace != null) {
+                trace.close();
+            }
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package weka.attributeSelection;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a trace written by {@link StepTraceWriter} and summarizes it per
+ * iteration: number of steps, accepted steps, accepted steps that lowered the
+ * merit, the mean absolute accepted change, the final temperature and the
+ * evaluation time.
+ * <p/>
+ * Several files are merged by iteration, since iteration indexes are those of
+ * the whole search. This summarizes a search run with worker processes, whose
+ * trace is split over the files of the workers and of the coordinator.
+ * <p/>
+ * Usage: java weka.attributeSelection.StepTraceReader &lt;trace file&gt;...
+ *
+ * @version $Revision: 1 $
+ */
+public class StepTraceReader {
+
+    /**
+     * the statistics of a single iteration
+     */
+    protected static class IterationSummary {
+        long steps;
+        long accepted;
+        long acceptedWorse;
+        double sumAcceptedChange;
+        double lastTemperature;
+        long evaluationNanos;
+    }
+
+    /**
+     * Reads the whole trace. An incomplete last record or header, left by a run
+     * that died while writing, ends the data with a warning.
+     *
+     * @param fileName the trace file
+     * @return the summaries by iteration
+     * @throws IOException if the file can't be read or is not a trace
+     */
+    public static Map<Integer, IterationSummary> read(String fileName) throws IOException {
+        Map<Integer, IterationSummary> summaries = new TreeMap<Integer, IterationSummary>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName), 1 << 16));
+        try {
+            int magic;
+            int version;
+            int recordSize;
+            try {
+                magic = in.readInt();
+                version = in.readInt();
+                recordSize = in.readInt();
+            } catch (EOFException e) {
+                // a worker killed before its trace was flushed
+                System.err.println("Warning: " + fileName + " ends within the header, ignored");
+                return summaries;
+            }
+            if (magic != StepTraceWriter.MAGIC) {
+                throw new IOException(fileName + " is not a step trace");
+            }
+            if (version != StepTraceWriter.VERSION || recordSize != StepTraceWriter.RECORD_SIZE) {
+                throw new IOException("Unsupported trace version " + version + " with records of " + recordSize + " bytes");
+            }
+            byte[] record = new byte[StepTraceWriter.RECORD_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (true) {
+                int read = 0;
+                int n;
+                while (read < record.length && (n = in.read(record, read, record.length - read)) > 0) {
+                    read += n;
+                }
+                if (read < record.length) {
+                    if (read > 0) {
+                        System.err.println("Warning: " + fileName + " ends with an incomplete record of "
+                                + read + " bytes, ignored");
+                    }
+                    break;
+                }
+                buffer.rewind();
+                int iteration = buffer.getInt();
+                buffer.getInt(); // step
+                int attribute = buffer.getInt();
+                double delta = buffer.getDouble();
+                double temperature = buffer.getDouble();
+                boolean accepted = buffer.get() != 0;
+                long nanos = buffer.getLong();
+
+                IterationSummary summary = summaries.get(iteration);
+                if (summary == null) {
+                    summary = new IterationSummary();
+                    summaries.put(iteration, summary);
+                }
+                summary.evaluationNanos += nanos;
+                if (attribute < 0) { // the initial subset
+                    continue;
+                }
+                summary.steps++;
+                summary.lastTemperature = temperature;
+                if (accepted) {
+                    summary.accepted++;
+                    summary.sumAcceptedChange += Math.abs(delta);
+                    if (delta < 0) {
+                        summary.acceptedWorse++;
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return summaries;
+    }
+
+    /**
+     * Reads several traces of the same search and merges them by iteration. An iteration
+     * found in more than one file, one of a worker that failed and was then run again,
+     * is taken from the file with the most steps of it, since the earlier run was cut short.
+     *
+     * @param fileNames the trace files
+     * @return the summaries by iteration
+     * @throws IOException if a file can't be read or is not a trace
+     */
+    public static Map<Integer, IterationSummary> read(String[] fileNames) throws IOException {
+        Map<Integer, IterationSummary> summaries = new TreeMap<Integer, IterationSummary>();
+        for (String fileName : fileNames) {
+            for (Map.Entry<Integer, IterationSummary> entry : read(fileName).entrySet()) {
+                IterationSummary previous = summaries.get(entry.getKey());
+                if (previous != null) {
+                    System.err.println("Warning: iteration " + entry.getKey() + " is traced in more than one file, "
+                            + "keeping the longest");
+                    if (previous.steps >= entry.getValue().steps) {
+                        continue;
+                    }
+                }
+                summaries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Prints the summary of one or more trace files of the same search.
+     *
+     * @param args the trace files
+     * @throws Exception if a trace can't be read
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: java " + StepTraceReader.class.getName() + " <trace file>...");
+            System.exit(1);
+        }
+        Map<Integer, IterationSummary> summaries = read(args);
+
+        System.out.println("iteration\tsteps\taccepted\taccepted_worse\tmean_accepted_change\tlast_temperature\teval_ms");
+        long steps = 0;
+        long accepted = 0;
+        long acceptedWorse = 0;
+        long nanos = 0;
+        for (Map.Entry<Integer, IterationSummary> entry : summaries.entrySet()) {
+            IterationSummary s = entry.getValue();
+            System.out.println(entry.getKey() + "\t" + s.steps + "\t" + s.accepted + "\t" + s.acceptedWorse + "\t"
+                    + (s.accepted == 0 ? 0 : s.sumAcceptedChange / s.accepted) + "\t"
+                    + s.lastTemperature + "\t" + s.evaluationNanos / 1e6);
+            steps += s.steps;
+            accepted += s.accepted;
+            acceptedWorse += s.acceptedWorse;
+            nanos += s.evaluationNanos;
+        }
+        System.out.println();
+        System.out.println("Iterations: " + summaries.size());
+        System.out.println("Steps: " + steps);
+        System.out.println("Acceptance rate: " + (steps == 0 ? 0 : (double) accepted / steps));
+        System.out.println("Accepted worse moves: " + acceptedWorse);
+        System.out.println("Total evaluation time (ms): " + nanos / 1e6);
+    }
+}
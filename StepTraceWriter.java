@@ -0,0 +1,119 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package weka.attributeSelection;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends one fixed-width binary record per annealing step to a file, so the
+ * dynamics of a search can be analysed offline with {@link StepTraceReader}
+ * without printing on the hot path.
+ * <p/>
+ * The file starts with a header of three ints: {@link #MAGIC}, {@link #VERSION}
+ * and {@link #RECORD_SIZE}. Each record then holds, big-endian: iteration (int),
+ * step (int), flipped attribute (int, -1 for the initial subset), merit delta
+ * (double), temperature (double), accepted (byte) and evaluation time in
+ * nanoseconds (long).
+ *
+ * @version $Revision: 1 $
+ */
+public class StepTraceWriter implements Closeable {
+
+    /**
+     * first int of every trace file
+     */
+    public static final int MAGIC = 0x53415452;
+
+    /**
+     * version of the record layout
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * the size in bytes of a single record
+     */
+    public static final int RECORD_SIZE = 4 + 4 + 4 + 8 + 8 + 1 + 8;
+
+    /**
+     * the buffered stream the records are written to
+     */
+    protected DataOutputStream m_out;
+
+    /**
+     * the number of records written so far
+     */
+    protected long m_records;
+
+    /**
+     * Opens the trace file, replacing it if it exists, and writes the header.
+     *
+     * @param fileName the file to write to
+     * @throws IOException if the file can't be opened
+     */
+    public StepTraceWriter(String fileName) throws IOException {
+        m_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+        m_out.writeInt(MAGIC);
+        m_out.writeInt(VERSION);
+        m_out.writeInt(RECORD_SIZE);
+    }
+
+    /**
+     * Appends the record of a single step.
+     *
+     * @param iteration the iteration (restart) of the search
+     * @param step the step within the iteration, 0 for the initial subset
+     * @param attribute the flipped attribute, -1 for the initial subset
+     * @param delta the merit of the new subset minus the merit of the current one
+     * @param temperature the temperature used to decide on the step
+     * @param accepted true if the new subset was accepted
+     * @param evaluationNanos the time spent evaluating the new subset
+     * @throws IOException if the record can't be written
+     */
+    public void write(int iteration, int step, int attribute, double delta, double temperature,
+                      boolean accepted, long evaluationNanos) throws IOException {
+        m_out.writeInt(iteration);
+        m_out.writeInt(step);
+        m_out.writeInt(attribute);
+        m_out.writeDouble(delta);
+        m_out.writeDouble(temperature);
+        m_out.writeByte(accepted ? 1 : 0);
+        m_out.writeLong(evaluationNanos);
+        m_records++;
+    }
+
+    /**
+     *
+     * @return the number of records written so far
+     */
+    public long getRecords() {
+        return m_records;
+    }
+
+    /**
+     * Flushes the remaining records and closes the file.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        m_out.close();
+    }
+}